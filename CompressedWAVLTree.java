@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *
+ * CompressedWAVLTree
+ *
+ * An immutable, compressed image of a WAVL tree.
+ * Keys are split into blocks of BLOCK_SIZE; the first key of every block is kept
+ * in a sparse index and the others are stored as varint deltas from the previous key.
+ * Every distinct info is stored once in a dictionary and referenced by a varint id.
+ * Lookups binary search the index and decode a single block.
+ *
+ */
+
+public class CompressedWAVLTree {
+
+	public static final int BLOCK_SIZE = 64;
+
+	/*first key and byte offset of every block.*/
+	private final int[] blockFirstKeys;
+	private final int[] blockOffsets;
+
+	/*the encoded blocks, one (delta, value id) pair per key. the first key of a block has no delta.*/
+	private final byte[] data;
+
+	/*distinct info of the tree. value id 0 stands for null, id j for dictionary[j-1].*/
+	private final String[] dictionary;
+
+	private final int size;
+
+	/**
+	 * public CompressedWAVLTree(WAVLTree tree)
+	 *
+	 * builds the compressed image of tree in one in-order pass.
+	 */
+	public CompressedWAVLTree(WAVLTree tree) {
+		int n = tree.empty() ? 0 : tree.size();
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] firstKeys = new int[blocks];
+		int[] offsets = new int[blocks];
+		byte[] out = new byte[Math.max(16, n * 2)];
+		int length = 0;
+		HashMap<String, Integer> ids = new HashMap<>();
+		String[] values = new String[16];
+
+		int count = 0;
+		long previousKey = 0;
+		for (WAVLTree.WAVLNode node = tree.min; count < n; node = tree.getSuccessor(node)) {
+			int key = node.getKey();
+			String value = node.getValue();
+			if (out.length - length < 10) { //room for two varints.
+				out = Arrays.copyOf(out, out.length * 2);
+			}
+			if (count % BLOCK_SIZE == 0) { //starts a new block.
+				firstKeys[count / BLOCK_SIZE] = key;
+				offsets[count / BLOCK_SIZE] = length;
+			}
+			else {
+				length = writeVarint(out, length, key - previousKey);
+			}
+
+			int id = 0;
+			if (value != null) {
+				Integer known = ids.get(value);
+				if (known == null) {
+					known = ids.size() + 1;
+					ids.put(value, known);
+					if (known > values.length) {
+						values = Arrays.copyOf(values, values.length * 2);
+					}
+					values[known - 1] = value;
+				}
+				id = known;
+			}
+			length = writeVarint(out, length, id);
+
+			previousKey = key;
+			count++;
+		}
+
+		this.size = n;
+		this.blockFirstKeys = firstKeys;
+		this.blockOffsets = offsets;
+		this.data = Arrays.copyOf(out, length);
+		this.dictionary = Arrays.copyOf(values, ids.size());
+	}
+
+	/*writes value as an unsigned varint at offset. returns the offset after it.*/
+	private static int writeVarint(byte[] out, int offset, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return size == 0;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * returns the number of items in the tree.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	public String search(int k) {
+		int block = blockOf(k);
+		if (block < 0) {
+			return null;
+		}
+		int valueId = findInBlock(block, k, -1);
+		return valueId < 0 ? null : valueOf(valueId);
+	}
+
+	/**
+	 * public String select(int i)
+	 *
+	 * Returns the value of the i'th smallest key, or null if i is not between 1 and size().
+	 */
+	public String select(int i) {
+		if (i < 1 || i > size) {
+			return null;
+		}
+		return valueOf(findInBlock((i - 1) / BLOCK_SIZE, 0, (i - 1) % BLOCK_SIZE));
+	}
+
+	/**
+	 * public int scan(int lo, int hi, EntryVisitor visitor)
+	 *
+	 * passes all items with keys between lo and hi (inclusive) to visitor in ascending order,
+	 * decompressing one block at a time. returns the number of items visited.
+	 */
+	public int scan(int lo, int hi, EntryVisitor visitor) {
+		if (empty() || lo > hi) {
+			return 0;
+		}
+		int[] keys = new int[BLOCK_SIZE];
+		int[] valueIds = new int[BLOCK_SIZE];
+		int visited = 0;
+		for (int block = Math.max(blockOf(lo), 0); block < blockFirstKeys.length && blockFirstKeys[block] <= hi; block++) {
+			int count = decodeBlock(block, keys, valueIds);
+			for (int j = 0; j < count; j++) {
+				if (keys[j] > hi) {
+					return visited;
+				}
+				if (keys[j] >= lo) {
+					visitor.visit(keys[j], valueOf(valueIds[j]));
+					visited++;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree.
+	 */
+	public int[] keysToArray() {
+		int[] arr = new int[size];
+		int[] keys = new int[BLOCK_SIZE];
+		int[] valueIds = new int[BLOCK_SIZE];
+		for (int block = 0; block < blockFirstKeys.length; block++) {
+			int count = decodeBlock(block, keys, valueIds);
+			System.arraycopy(keys, 0, arr, block * BLOCK_SIZE, count);
+		}
+		return arr;
+	}
+
+	/*returns the approximate memory footprint of the compressed image in bytes, arrays and dictionary strings included.*/
+	public long sizeInBytes() {
+		long bytes = 16L * 5 + data.length + 4L * (blockFirstKeys.length + blockOffsets.length) + 8L * dictionary.length;
+		for (String value : dictionary) {
+			bytes += 40 + value.length();
+		}
+		return bytes;
+	}
+
+	/*returns the last block whose first key is at most k, or -1 if k is below all keys.*/
+	private int blockOf(int k) {
+		int j = Arrays.binarySearch(blockFirstKeys, k);
+		return j >= 0 ? j : -j - 2;
+	}
+
+	/*decodes block into keys and valueIds. returns the number of items in the block.*/
+	private int decodeBlock(int block, int[] keys, int[] valueIds) {
+		return decodeBlock(block, keys, valueIds, 0, -1);
+	}
+
+	/*decodes block only as far as needed: up to the item at position index of the block if index >= 0,
+	 *otherwise up to the first key >= k. returns that item's value id, or -1 if k is not in the block.*/
+	private int findInBlock(int block, int k, int index) {
+		return decodeBlock(block, null, null, k, index);
+	}
+
+	/*decodes block into keys and valueIds, or searches it when they are null (see findInBlock).*/
+	private int decodeBlock(int block, int[] keys, int[] valueIds, int k, int index) {
+		int count = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+		int offset = blockOffsets[block];
+		long key = blockFirstKeys[block];
+		for (int j = 0; j < count; j++) {
+			if (j > 0) {
+				long delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[offset++];
+					delta |= (long) (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				key += delta;
+			}
+			int id = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[offset++];
+				id |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			if (keys != null) {
+				keys[j] = (int) key;
+				valueIds[j] = id;
+			}
+			else if (j == index || (index < 0 && key == k)) {
+				return id;
+			}
+			else if (index < 0 && key > k) {
+				return -1;
+			}
+		}
+		return keys != null ? count : -1;
+	}
+
+	private String valueOf(int valueId) {
+		return valueId == 0 ? null : dictionary[valueId - 1];
+	}
+
+	/**
+	 * public interface EntryVisitor
+	 *
+	 * receives the items of a range scan.
+	 */
+	public interface EntryVisitor {
+		void visit(int key, String value);
+	}
+}
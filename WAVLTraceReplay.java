@@ -0,0 +1,190 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *
+ * WAVLTraceReplay
+ *
+ * Replays a binary trace recorded with WAVLTree.startTrace against a fresh tree
+ * and reports per-operation latency percentiles, rebalancing counts by type
+ * and the bytes allocated while replaying. select records are skipped (and reported)
+ * when the tree is replayed without order statistics.
+ *
+ * usage: java WAVLTraceReplay <trace file> [cache size] [order statistics (true|false)]
+ *
+ */
+
+public class WAVLTraceReplay {
+
+	private static final String[] OP_NAMES = {null, "insert", "delete", "search", "select", "deleteRange"};
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+	/*the decoded trace, one entry per operation.*/
+	private byte[] ops = new byte[1024];
+	private int[] keys = new int[1024];
+	/*the upper bound of range deletes.*/
+	private int[] hiKeys = new int[1024];
+	private String[] values = new String[1024];
+	private int length = 0;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: java WAVLTraceReplay <trace file> [cache size] [order statistics (true|false)]");
+			System.exit(2);
+		}
+		int cacheSize = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		boolean orderStatistics = args.length > 2 ? Boolean.parseBoolean(args[2]) : true;
+
+		WAVLTraceReplay replay = new WAVLTraceReplay();
+		replay.read(args[0]);
+		replay.run(new WAVLTree(cacheSize, orderStatistics));
+	}
+
+	/*decodes the whole trace before replaying, so reading it is not measured.*/
+	public void read(String path) throws IOException {
+		HashMap<Integer, String> valuesByLength = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+			while (true) {
+				byte op;
+				try {
+					op = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				if (op < 1 || op >= OP_NAMES.length) {
+					throw new IOException("unknown operation " + op + " at record " + length);
+				}
+				int key = in.readInt();
+				int hiKey = key;
+				String value = null;
+				if (op == WAVLTree.TRACE_INSERT) {
+					int valueLength = in.readInt();
+					if (valueLength >= 0) {
+						value = valuesByLength.computeIfAbsent(valueLength, WAVLTraceReplay::valueOfLength);
+					}
+				}
+				else if (op == WAVLTree.TRACE_DELETE_RANGE) {
+					hiKey = in.readInt();
+				}
+				add(op, key, hiKey, value);
+			}
+		}
+	}
+
+	/*returns a value string of the given length.*/
+	private static String valueOfLength(int valueLength) {
+		char[] chars = new char[valueLength];
+		Arrays.fill(chars, 'v');
+		return new String(chars);
+	}
+
+	private void add(byte op, int key, int hiKey, String value) {
+		if (length == ops.length) {
+			ops = Arrays.copyOf(ops, length * 2);
+			keys = Arrays.copyOf(keys, length * 2);
+			hiKeys = Arrays.copyOf(hiKeys, length * 2);
+			values = Arrays.copyOf(values, length * 2);
+		}
+		ops[length] = op;
+		keys[length] = key;
+		hiKeys[length] = hiKey;
+		values[length] = value;
+		length++;
+	}
+
+	/*replays the trace against tree and prints the report.*/
+	public void run(WAVLTree tree) {
+		long[] latencies = new long[length];
+		int[] counts = new int[OP_NAMES.length];
+		for (int i = 0; i < length; i++) {
+			counts[ops[i]]++;
+		}
+		boolean canSelect = tree.hasOrderStatistics();
+
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < length; i++) {
+			long opStart = System.nanoTime();
+			switch (ops[i]) {
+			case WAVLTree.TRACE_INSERT:
+				tree.insert(keys[i], values[i]);
+				break;
+			case WAVLTree.TRACE_DELETE:
+				tree.delete(keys[i]);
+				break;
+			case WAVLTree.TRACE_SEARCH:
+				tree.search(keys[i]);
+				break;
+			case WAVLTree.TRACE_SELECT:
+				if (canSelect) {
+					tree.select(keys[i]);
+				}
+				break;
+			case WAVLTree.TRACE_DELETE_RANGE:
+				tree.deleteRange(keys[i], hiKeys[i]);
+				break;
+			}
+			latencies[i] = System.nanoTime() - opStart;
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		System.out.printf("operations: %d in %.3f ms%n", length, elapsed / 1e6);
+		for (byte op = 1; op < OP_NAMES.length; op++) {
+			if (counts[op] > 0 && op == WAVLTree.TRACE_SELECT && !canSelect) {
+				System.out.printf("%-11s n=%d skipped: unsupported without order statistics%n", OP_NAMES[op], counts[op]);
+			}
+			else if (counts[op] > 0) {
+				printLatencies(op, latencies, counts[op]);
+			}
+		}
+		System.out.printf("promotions: %d, demotions: %d, single rotations: %d, double rotations: %d%n",
+				tree.getPromotionCount(), tree.getDemotionCount(),
+				tree.getSingleRotationCount(), tree.getDoubleRotationCount());
+		if (allocated >= 0) {
+			System.out.printf("allocated: %d bytes (%.1f B/op)%n", allocated, (double) allocated / Math.max(length, 1));
+		}
+		else {
+			System.out.println("allocated: not supported by this JVM");
+		}
+		System.out.printf("cache hits: %d, cache misses: %d%n", tree.getCacheHits(), tree.getCacheMisses());
+	}
+
+	/*prints the latency percentiles of all operations of type op.*/
+	private void printLatencies(byte op, long[] latencies, int count) {
+		long[] sorted = new long[count];
+		int j = 0;
+		for (int i = 0; i < length; i++) {
+			if (ops[i] == op) {
+				sorted[j++] = latencies[i];
+			}
+		}
+		Arrays.sort(sorted);
+		StringBuilder line = new StringBuilder();
+		line.append(String.format("%-11s n=%d", OP_NAMES[op], count));
+		for (double p : PERCENTILES) {
+			int index = (int) Math.min(count - 1, Math.ceil(p / 100 * count) - 1);
+			line.append(String.format(" p%s=%dns", p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p), sorted[Math.max(index, 0)]));
+		}
+		line.append(String.format(" max=%dns", sorted[count - 1]));
+		System.out.println(line);
+	}
+
+	/*returns the bytes allocated so far by the current thread, or -1 if the JVM cannot tell.*/
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+}
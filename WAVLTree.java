@@ -1,3 +1,10 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
 /**
  *
  * WAVLTree
@@ -18,8 +25,75 @@ public class WAVLTree {
 	/*a single external leaf is used for the entire tree.*/
 	public final WAVLNode externalLeaf = new WAVLNode();
 	
+	/*optional direct-mapped cache from key to node in front of search, null when disabled.*/
+	private WAVLNode[] searchCache = null;
+	private int searchCacheShift;
+	private long cacheHits = 0;
+	private long cacheMisses = 0;
+	/*the largest search cache, the largest power of two an array can hold.*/
+	public static final int MAX_CACHE_SLOTS = 1 << 30;
+	
+	/*operation codes of the binary trace. each record is the code, the key and, for inserts, the value length (-1 for null).*/
+	public static final byte TRACE_INSERT = 1;
+	public static final byte TRACE_DELETE = 2;
+	public static final byte TRACE_SEARCH = 3;
+	public static final byte TRACE_SELECT = 4;
+	/*range deletes store the upper bound in place of the value length.*/
+	public static final byte TRACE_DELETE_RANGE = 5;
+	
+	/*the trace being recorded, null when not recording.*/
+	private DataOutputStream trace = null;
+	
+	/*counters of rebalancing operations by type, since construction or the last resetRebalanceCounts().*/
+	private long promotions = 0;
+	private long demotions = 0;
+	private long singleRotations = 0;
+	private long doubleRotations = 0;
+	
+	/*version of the tree, incremented by every successful insert and delete.*/
+	private long version = 0;
+	
+	/*ring buffer of the most recent changes, null when the change feed is disabled.
+	 *the change with version v is stored at index (v-1) % capacity.*/
+	private byte[] changeOps = null;
+	private int[] changeKeys;
+	private int[] changeHiKeys;
+	private String[] changeValues;
+	/*changes with versions up to changeFeedStart were made before the ring could hold them.*/
+	private long changeFeedStart;
+	
+	/*the maximal number of items kept in the tree, and which end is evicted when it overflows.*/
+	private int capacity = Integer.MAX_VALUE;
+	private boolean evictMin = true;
+	
+	/*whether subtree sizes are maintained for select. when false, only the item count is kept.*/
+	private final boolean orderStatistics;
+	/*the number of items in the tree.*/
+	private int itemCount = 0;
+	
 	public WAVLTree() {
+		this(0, true);
+	}
+	
+	/*constructs a tree with a search cache of at least cacheSize slots (rounded up to a power of two,
+	 *at most MAX_CACHE_SLOTS).*/
+	public WAVLTree(int cacheSize) {
+		this(cacheSize, true);
+	}
+	
+	/*constructs a tree with a search cache of at least cacheSize slots (none if 0, at most MAX_CACHE_SLOTS).
+	 *if orderStatistics is false, subtree sizes are not maintained: mutations stop climbing
+	 *as soon as the tree is balanced, select/selectAll are unavailable, WAVLNode.getSubtreeSize()
+	 *is meaningless, and deleteRange/truncateBelow/truncateAbove cost O(log n) plus the number
+	 *of items they delete instead of O(log n).*/
+	public WAVLTree(int cacheSize, boolean orderStatistics) {
 		root = null;
+		this.orderStatistics = orderStatistics;
+		if (cacheSize > 0) {
+			int slots = (cacheSize > MAX_CACHE_SLOTS) ? MAX_CACHE_SLOTS : Integer.highestOneBit(Math.max(cacheSize - 1, 1)) << 1;
+			this.searchCache = new WAVLNode[slots];
+			this.searchCacheShift = 32 - Integer.numberOfTrailingZeros(slots);
+		}
 	}
 	
   /**
@@ -40,18 +114,99 @@ public class WAVLTree {
   
   public String search(int k) {
 	  
+	  	if (trace != null) {
+	  		recordTrace(TRACE_SEARCH, k, 0);
+	  	}
+	  	if (searchCache != null) {
+	  		WAVLNode cached = searchCache[cacheSlot(k)];
+	  		if (cached != null && cached.getKey() == k) { //cached nodes are always inner nodes of the tree.
+	  			cacheHits++;
+	  			return cached.getValue();
+	  		}
+	  		cacheMisses++;
+	  	}
 	  	WAVLNode found = searchClosestKey(k);
 	  	if (found == null) {
 	  		return null;
 	  	}
 	  	else {
 	  		if (found.getKey() == k) {
+	  			if (searchCache != null) {
+	  				searchCache[cacheSlot(k)] = found;
+	  			}
 	  			return found.getValue();
 	  		} else {
 	  			return null;
 	  		}
 	  	}
   }
+  
+  /*returns the cache slot of key k (fibonacci hashing).*/
+  private int cacheSlot(int k) {
+	  return (k * 0x9E3779B9) >>> searchCacheShift;
+  }
+  
+  /*removes node from the search cache if it is cached. nodes keep their identity through rotations, so only deletion invalidates.*/
+  private void invalidateCache(WAVLNode node) {
+	  if (searchCache != null) {
+		  int slot = cacheSlot(node.getKey());
+		  if (searchCache[slot] == node) {
+			  searchCache[slot] = null;
+		  }
+	  }
+  }
+  
+  /*starts recording a binary trace of insert, delete, deleteRange, search and select calls to out.
+   *throws IllegalStateException if a trace is already running; call stopTrace first.*/
+  public void startTrace(OutputStream out) {
+	  if (trace != null) {
+		  throw new IllegalStateException("a trace is already running");
+	  }
+	  this.trace = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+  }
+  
+  /*stops recording and flushes the trace. the underlying stream is left open.*/
+  public void stopTrace() throws IOException {
+	  if (trace != null) {
+		  DataOutputStream out = trace;
+		  trace = null;
+		  out.flush();
+	  }
+  }
+  
+  /*appends one record to the trace. extra is the value length of inserts and the upper bound of range deletes.*/
+  private void recordTrace(byte op, int k, int extra) {
+	  try {
+		  trace.writeByte(op);
+		  trace.writeInt(k);
+		  if (op == TRACE_INSERT || op == TRACE_DELETE_RANGE) {
+			  trace.writeInt(extra);
+		  }
+	  } catch (IOException e) {
+		  throw new UncheckedIOException(e);
+	  }
+  }
+  
+  /*empties the tree. the version and the change feed are left to the caller.*/
+  private void clear() {
+	  root = null;
+	  min = null;
+	  max = null;
+	  itemCount = 0;
+	  if (searchCache != null) {
+		  Arrays.fill(searchCache, null);
+	  }
+  }
+  
+  /*returns the number of searches answered by the search cache.*/
+  public long getCacheHits() {
+	  return cacheHits;
+  }
+  
+  /*returns the number of searches that missed the search cache (0 if the cache is disabled).*/
+  public long getCacheMisses() {
+	  return cacheMisses;
+  }
 
   /*returns node with closest key to k in the tree. if not found, returns null.*/
   public WAVLNode searchClosestKey(int k) {
@@ -88,6 +243,115 @@ public class WAVLTree {
 	  }
 	  return null;
   }
+  
+  /**
+   * public WAVLNode floor(int k)
+   *
+   * returns the node with the largest key smaller than or equal to k,
+   * or null if there is no such node.
+   */
+  public WAVLNode floor(int k) {
+	  return searchBelow(k, true);
+  }
+  
+  /**
+   * public WAVLNode lower(int k)
+   *
+   * returns the node with the largest key strictly smaller than k,
+   * or null if there is no such node.
+   */
+  public WAVLNode lower(int k) {
+	  return searchBelow(k, false);
+  }
+  
+  /**
+   * public WAVLNode ceiling(int k)
+   *
+   * returns the node with the smallest key larger than or equal to k,
+   * or null if there is no such node.
+   */
+  public WAVLNode ceiling(int k) {
+	  return searchAbove(k, true);
+  }
+  
+  /**
+   * public WAVLNode higher(int k)
+   *
+   * returns the node with the smallest key strictly larger than k,
+   * or null if there is no such node.
+   */
+  public WAVLNode higher(int k) {
+	  return searchAbove(k, false);
+  }
+  
+  /*descends from the root remembering the last node whose key is below k (or equal to k if inclusive).*/
+  private WAVLNode searchBelow(int k, boolean inclusive) {
+	  WAVLNode best = null;
+	  WAVLNode curr = root;
+	  while (curr != null && curr.isInnerNode()) {
+		  if (curr.getKey() < k || (inclusive && curr.getKey() == k)) {
+			  best = curr;
+			  curr = curr.getActualRight();
+		  }
+		  else {
+			  curr = curr.getActualLeft();
+		  }
+	  }
+	  return best;
+  }
+  
+  /*descends from the root remembering the last node whose key is above k (or equal to k if inclusive).*/
+  private WAVLNode searchAbove(int k, boolean inclusive) {
+	  WAVLNode best = null;
+	  WAVLNode curr = root;
+	  while (curr != null && curr.isInnerNode()) {
+		  if (curr.getKey() > k || (inclusive && curr.getKey() == k)) {
+			  best = curr;
+			  curr = curr.getActualLeft();
+		  }
+		  else {
+			  curr = curr.getActualRight();
+		  }
+	  }
+	  return best;
+  }
+  
+  /**
+   * public int[] nearest(int k, int n)
+   *
+   * returns the (up to) n keys closest to k, ordered by their distance from k.
+   * of two keys at the same distance the smaller comes first.
+   */
+  public int[] nearest(int k, int n) {
+	  int[] keys = new int[Math.max(0, Math.min(n, size()))];
+	  nearest(k, keys.length, keys);
+	  return keys;
+  }
+  
+  /**
+   * public int nearest(int k, int n, int[] keys)
+   *
+   * writes the (up to) n keys closest to k into keys, ordered as in nearest(k, n).
+   * two cursors start at floor(k) and its successor and move outwards, so nothing
+   * is allocated per step. returns the number of keys written.
+   */
+  public int nearest(int k, int n, int[] keys) {
+	  WAVLNode down = floor(k);
+	  WAVLNode up = (down == null) ? min : getSuccessor(down);
+	  int limit = Math.min(n, keys.length);
+	  int count = 0;
+	  while (count < limit && (down != null || up != null)) {
+		  if (up == null || (down != null && (long) k - down.getKey() <= (long) up.getKey() - k)) {
+			  keys[count++] = down.getKey();
+			  down = getPredecessor(down);
+		  }
+		  else {
+			  keys[count++] = up.getKey();
+			  up = getSuccessor(up);
+		  }
+	  }
+	  return count;
+  }
  
   /**
    * public int insert(int k, String i)
@@ -96,19 +360,45 @@ public class WAVLTree {
    * the tree must remain valid (keep its invariants).
    * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
    * returns -1 if an item with key k already exists in the tree.
+   * returns -2 if the tree is bounded, full, and k lies outside the retained window.
    */
    public int insert(int k, String i) {
+	   if (trace != null) {
+		   recordTrace(TRACE_INSERT, k, i == null ? -1 : i.length());
+	   }
+	   if (!empty() && size() >= capacity && (evictMin ? k < min.getKey() : k > max.getKey())) {
+		   return -2; //k would be evicted right away.
+	   }
 	   if (empty()) {
 		   this.root = new WAVLNode(k,i);
 		   this.max = root;
 		   this.min = root;
+		   itemCount = 1;
+		   recordChange(Change.INSERT, k, i);
 		   return 0;
 	   }
-       WAVLNode possibleParent = searchClosestKey(k);
-       int parentKey = possibleParent.getKey();
-       if (parentKey == k) { //key already exists.
-    	   return -1;
+       //single descent that counts the new node in the subtree sizes on the way down.
+       WAVLNode possibleParent = root;
+       while (true) {
+    	   int parentKey = possibleParent.getKey();
+    	   if (parentKey == k) { //key already exists, undo the counting.
+    		   if (orderStatistics) {
+    			   for (WAVLNode curr = possibleParent.getParent(); curr != null; curr = curr.getParent()) {
+    				   curr.subtreeSize--;
+    			   }
+    		   }
+    		   return -1;
+    	   }
+    	   if (orderStatistics) {
+    		   possibleParent.subtreeSize++;
+    	   }
+    	   WAVLNode next = (k < parentKey) ? possibleParent.getActualLeft() : possibleParent.getActualRight();
+    	   if (!next.isInnerNode()) {
+    		   break;
+    	   }
+    	   possibleParent = next;
        }
+       int parentKey = possibleParent.getKey();
        WAVLNode newNode = new WAVLNode(k,i); //creates the new node
 
        //updating min, max
@@ -126,52 +416,66 @@ public class WAVLTree {
     	   possibleParent.setRight(newNode);
        }
        newNode.setParent(possibleParent);
-       updateTreeSubtreeSize(possibleParent); 
+       itemCount++;
+       recordChange(Change.INSERT, k, i); 
        
-       return insertBalance(newNode); //rebalances if needed. 
+       int count = insertBalance(newNode); //rebalances if needed. 
+       if (size() > capacity) { //evicts the end of the window without searching for it.
+    	   count += deleteNode(evictMin ? min : max);
+       }
+       return count;
    }
    
-   /*rebalance the tree if needed. counts num of balancing operations*/
-   public int insertBalance(WAVLNode node) {
-	   
-	   if (node.getParent() == null) { //node is root, no balance needed
-		   return 0;
+   /**
+    * public void setCapacity(int capacity, boolean evictMin)
+    *
+    * bounds the tree to at most capacity items. when an insert overflows it, the item with
+    * the smallest key is evicted if evictMin is true, otherwise the item with the largest key.
+    * items over the new capacity are evicted right away. Integer.MAX_VALUE removes the bound.
+    * throws IllegalArgumentException if capacity is smaller than 1.
+    */
+   public void setCapacity(int capacity, boolean evictMin) {
+	   if (capacity < 1) {
+		   throw new IllegalArgumentException("capacity must be at least 1, got " + capacity);
 	   }
-	   WAVLNode parent = node.getParent(); //no 0 rankdiff - no balance needed.
-	   if (parent.getRank() != node.getRank()) { 
-		   return 0;  
+	   this.capacity = capacity;
+	   this.evictMin = evictMin;
+	   while (!empty() && size() > this.capacity) {
+		   deleteNode(evictMin ? min : max);
 	   }
+   }
+   
+   /*rebalance the tree if needed, climbing only while node has a 0 rank-diff with its parent.
+    *subtree sizes must already be correct. counts num of balancing operations*/
+   public int insertBalance(WAVLNode node) {
+	   int count = 0;
+	   WAVLNode parent = node.getParent();
 	   
-	   int balanceParent = getBalance(node.getParent()); 
-	   if (balanceParent == 1 || balanceParent == -1) {  //promotes node.
-		   parent.setRank(parent.getRank() + 1);
-		   return (1 + insertBalance(parent));
-	   }
-	   //rotate options
-	   else if (balanceParent == 2) { 
-
-		   int balanceNode = getBalance(node);
-		   if (balanceNode == 1) {
-			   singleRotate(node);
-			   return 2; 
-		   }
-		   else {
-			   doubleRotate(node);
-			   return 5;
-		   }
-	   }
-	   else if (balanceParent == -2) {
-		   int balanceNode = getBalance(node);
-		   if (balanceNode == -1) {
-			   singleRotate(node);
-			   return 2; 
+	   while (parent != null && parent.getRank() == node.getRank()) { //0 rankdiff - balance needed.
+		   int balanceParent = getBalance(parent); 
+		   if (balanceParent == 1 || balanceParent == -1) {  //promotes parent and continues from it.
+			   parent.setRank(parent.getRank() + 1);
+			   promotions++;
+			   count++;
+			   node = parent;
+			   parent = node.getParent();
 		   }
+		   //rotate options, both end the rebalancing.
 		   else {
-			   doubleRotate(node);
-			   return 5;
+			   int balanceNode = getBalance(node);
+			   if (balanceNode == balanceParent / 2) { //the outer child of node is the higher one.
+				   singleRotate(node);
+				   singleRotations++;
+				   return count + 2; 
+			   }
+			   else {
+				   doubleRotate(node);
+				   doubleRotations++;
+				   return count + 5;
+			   }
 		   }
 	   }
-	   return -1;
+	   return count;
    }
    
    /*returns rankdiff from left child - rankdiff from right child*/
@@ -240,6 +544,7 @@ public class WAVLTree {
 			else {
 				grandParent.setLeft(node);
 			}
+		}
 		//updating pointers
 		node.setParent(grandParent);
 		node.setRight(nodeParent); 
@@ -252,12 +557,8 @@ public class WAVLTree {
 
 		//updating size
 		nodeParent.updateSubtreeSize();
-		node.updateSubtreeSize();
-		if (grandParent != null) {
-			grandParent.updateSubtreeSize();
-		}
+		node.updateSubtreeSize(); //the subtree of grandParent keeps its size.
 		nodeParent.setRank(nodeParent.getRank()-1);
-		}
 	}
 	
 	/*single rotate when node is right child*/
@@ -292,10 +593,7 @@ public class WAVLTree {
 		
 		//updating size
 		parent.updateSubtreeSize();
-		node.updateSubtreeSize();
-		if (grandParent != null) {
-			grandParent.updateSubtreeSize();
-		}
+		node.updateSubtreeSize(); //the subtree of grandParent keeps its size.
 		parent.setRank(parent.getRank()-1);
 		}
 	
@@ -310,8 +608,11 @@ public class WAVLTree {
    */
 	
    public int delete(int k) {
+	   if (trace != null) {
+		   recordTrace(TRACE_DELETE, k, 0);
+	   }
 	   WAVLNode deletionNode = searchClosestKey(k);
-	   if (deletionNode.getKey() != k) {
+	   if (deletionNode == null || deletionNode.getKey() != k) {
 		   return -1; //returns -1 if the key k was not found in the tree.
 	   }
 	   else {
@@ -321,7 +622,9 @@ public class WAVLTree {
    
    public int deleteNode(WAVLNode deletionNode) {
 	   
-	  WAVLNode nodeParent = deletionNode.getParent();
+	  invalidateCache(deletionNode);
+	  itemCount--;
+	  recordChange(Change.DELETE, deletionNode.getKey(), null);
 	  
 	  //updating min and max if necessary
 	  if (deletionNode == min) {
@@ -331,101 +634,64 @@ public class WAVLTree {
 		  max = getPredecessor(max);
 	  }
 	  
-	  if (deletionNode.isALeaf()){
-		if (nodeParent == null) { // only one node in the tree.
-			root = null;
-			return 0; // no rebalancing ops. needed.
-	  	} else if (deletionNode.isLeftChild()) {
-		  nodeParent.setLeft(externalLeaf);  
-	  	} else {
-		  nodeParent.setRight(externalLeaf); 
-	  	}
-	  return DeletionRebalanceCount(nodeParent); //rebalance via the node's parent.
+	  if (deletionNode.getLeft() != null && deletionNode.getRight() != null) { ///the node has two children.
+		  //the successor has no left child, so it is spliced out of its place and then takes the place of the node.
+		  WAVLNode successorNode = deletionNode.getActualRight();
+		  while (successorNode.getLeft() != null) {
+			  successorNode = successorNode.getActualLeft();
+		  }
+		  WAVLNode successorNodeParent = successorNode.getParent();
+		  splice(successorNode, successorNode.getActualRight());
+		  replace(deletionNode, successorNode);
+		  if (successorNodeParent == deletionNode) {
+			  return 1+ DeletionRebalanceCount(successorNode);
+		  }
+		  return 1+ DeletionRebalanceCount(successorNodeParent);
+	  }
 	  
-   	} else if (deletionNode.getActualRight().isInnerNode() && (!deletionNode.getActualLeft().isInnerNode()))  { 
-   	   //unary, only right child.
-	   replace(deletionNode, deletionNode.getActualRight());
-	   
-	   return 1+ DeletionRebalanceCount(nodeParent);
-	} else if (deletionNode.getActualLeft().isInnerNode() && (!deletionNode.getActualRight().isInnerNode())) { 
-		//unary, only left child.
-		replace(deletionNode, deletionNode.getActualLeft());
-		return 1+ DeletionRebalanceCount(nodeParent);
-		} else { ///the node has two children.  
-   			WAVLNode successorNode = getSuccessor(deletionNode);
-   			WAVLNode successorNodeParent = successorNode.getParent();
-   			replace(deletionNode, successorNode);
-   			if (successorNodeParent == deletionNode) {
-   				return 1+ DeletionRebalanceCount(successorNode);
-   			}else {
-   				return 1+ DeletionRebalanceCount(successorNodeParent);
-   			}
-   		}
+	  WAVLNode nodeParent = deletionNode.getParent();
+	  if (deletionNode.isALeaf()) {
+		  splice(deletionNode, externalLeaf);
+		  return DeletionRebalanceCount(nodeParent); //rebalance via the node's parent.
+	  }
+	  //unary, the only child takes the place of the node.
+	  splice(deletionNode, deletionNode.getLeft() != null ? deletionNode.getActualLeft() : deletionNode.getActualRight());
+	  return 1+ DeletionRebalanceCount(nodeParent);
    }
 	
-	/*Replace the nodes nodeA and nodeB*/
-	public void replace(WAVLNode nodeA, WAVLNode nodeB) {
-		WAVLNode nodeAParent = nodeA.getParent();
-		WAVLNode nodeBParent = nodeB.getParent();
-		WAVLNode nodeBLeft = nodeB.getActualLeft();
-		WAVLNode nodeBRight = nodeB.getActualRight();
-		
-		if (nodeA.getLeft() != null && nodeA.getRight() != null) { //nodeA has two children.
-			nodeB.setRank(nodeA.getRank());
-			if (nodeA.getActualLeft() != nodeB){
-				nodeB.setLeft(nodeA.getLeft());
-				nodeA.getActualLeft().setParent(nodeB);
-			}
-			if (nodeA.getActualRight() != nodeB) {
-				nodeB.setRight(nodeA.getRight());
-				nodeA.getActualRight().setParent(nodeB);
-			}
-			
-			if (nodeA.getLeft() != nodeB && nodeA.getRight() != nodeB) {
-				if(!nodeBLeft.isInnerNode() && !nodeBRight.isInnerNode()) { //nodeB had no children.
-					if (nodeB.isRightChild()) {
-						nodeBParent.setRight(externalLeaf);
-					} else {
-					nodeBParent.setLeft(externalLeaf);
-					}
-				} else if (!nodeBRight.isInnerNode() && nodeBLeft.isInnerNode()) {
-					if(nodeB.isRightChild()) {
-						nodeBParent.setRight(nodeBLeft);
-						nodeBLeft.setParent(nodeBParent);
-					} else {
-						nodeBParent.setLeft(nodeBLeft);
-						nodeBLeft.setParent(nodeBParent);
-					}
-				} else if (!nodeBLeft.isInnerNode() && nodeBRight.isInnerNode()) {
-					if(nodeB.isRightChild()) {
-						nodeBParent.setRight(nodeBRight);
-						nodeBRight.setParent(nodeBParent);
-					}
-					else {
-						nodeBParent.setLeft(nodeBRight);
-						nodeBRight.setParent(nodeBParent);
-					}
-				}
-			}
-		} 
-		//connecting nodeB to the parent of nodeA.
-		if (nodeAParent != null) {  
-			nodeB.setParent(nodeAParent);
-			if (nodeA.isLeftChild()) {
-				nodeAParent.setLeft(nodeB);
-			}
-			else {
-				nodeAParent.setRight(nodeB);
-			} 
+	/*puts child (an inner node or the external leaf) in the place of node in the tree.*/
+	private void splice(WAVLNode node, WAVLNode child) {
+		WAVLNode nodeParent = node.getParent();
+		if (nodeParent == null) { //node is the root of the WAVL tree.
+			root = child.isInnerNode() ? child : null;
+		}
+		else if (nodeParent.getActualLeft() == node) {
+			nodeParent.setLeft(child);
+		}
+		else {
+			nodeParent.setRight(child);
 		}
-		else {  //nodeA is the root of the WAVL tree.
-			this.root = nodeB;
-			nodeB.setParent(null);
+		if (child.isInnerNode()) {
+			child.setParent(nodeParent);
+		}
+	}
+	
+	/*puts nodeB, which was already spliced out of the tree, in the place of nodeA.
+	 *nodeB takes the children, rank and subtree size of nodeA.*/
+	public void replace(WAVLNode nodeA, WAVLNode nodeB) {
+		WAVLNode left = nodeA.getActualLeft();
+		WAVLNode right = nodeA.getActualRight();
+		nodeB.setLeft(left);
+		nodeB.setRight(right);
+		if (left.isInnerNode()) {
+			left.setParent(nodeB);
 		}
-		//demotes if nodeB is now a leaf ////CHECK
-		if (nodeB.isALeaf()) {
-			nodeB.setRank(0);
+		if (right.isInnerNode()) {
+			right.setParent(nodeB);
 		}
+		nodeB.setRank(nodeA.getRank());
+		nodeB.setSubtreeSize(nodeA.getSubtreeSize());
+		splice(nodeA, nodeB);
 	}
 	
 	/*gets the successor of nodeA*/
@@ -450,7 +716,7 @@ public class WAVLTree {
 		} else if (nodeA.isLeftChild()) { //if node is left child - its parent is the successor.
 			return nodeA.getParent();
 		} while (nodeOne.isRightChild()) { //climb branch leftword until the first right turn.
-			nodeOne = nodeA.getParent(); 
+			nodeOne = nodeOne.getParent(); 
 		}
 		if (nodeOne.getParent() != null) { //if nodeOne has a parent, the parent is the successor.
 			return nodeOne.getParent();
@@ -480,7 +746,7 @@ public class WAVLTree {
 		} else if (nodeA.isRightChild()) { //if node is right child - its parent is the predecessor.
 			return nodeA.getParent();
 		} while (nodeOne.isLeftChild()) { //climb branch rightword until the first left turn.
-			nodeOne = nodeA.getParent(); 
+			nodeOne = nodeOne.getParent(); 
 		}
 		if (nodeOne.getParent() != null) { //if nodeOne has a parent, the parent is the predecessor.
 			return nodeOne.getParent();
@@ -488,95 +754,87 @@ public class WAVLTree {
 		return null; 
 	}
 	
+	/*removes one item from the subtree sizes of node and its ancestors, and rebalances the tree
+	 *after a node below node was removed, climbing only while a rank-diff of 3 or a (2,2) leaf remains
+	 *(or up to the root when subtree sizes are maintained). counts num of balancing operations*/
 	public int DeletionRebalanceCount(WAVLNode node) {
-		if (node == null) { //recursion termination after climbing up until the root.
-			return 0; 
+		int count = 0;
+		boolean balanced = false;
 		
-		} else if (node.isALeaf()) { //rank-diff for leaves should be (1,1).
-			Integer count = leafDeletionRebalanceCount(node);
-			if (count != null) {
-				updateTreeSubtreeSize(node);
-				return count;
-			} 
-		}
-			
-			if(node.getRankDiffLeft() <= 2 && node.getRankDiffRight() <= 2) { 
-				//legal rank-diff for WAVL tree node, recursion termination.
-				updateTreeSubtreeSize(node);
-				return 0;
+		for (WAVLNode curr = node; curr != null; curr = curr.getParent()) {
+			if (balanced) {
+				if (!orderStatistics) {
+					break;
+				}
+				curr.subtreeSize--;
+				continue;
 			}
-		if(node.getRankDiffLeft() == 3) {
-				int diffRight = node.getRankDiffRight();
-				
-			if (diffRight == 2) { //node (3,2) - demote once.
-				int newRank = node.getRank()-1;
-				node.setRank(newRank);
-				node.updateSubtreeSize();
-				return 1 + DeletionRebalanceCount(node.getParent());
+			if (orderStatistics) {
+				curr.subtreeSize--;
+			}
+			int diffLeft = curr.getRankDiffLeft();
+			int diffRight = curr.getRankDiffRight();
 			
-			} else if (diffRight == 1) {
-				WAVLNode childRight = node.getActualRight();
+			if (curr.isALeaf() && diffLeft == 2) { //(2,2) leaf - demote, rank-diff for leaves should be (1,1).
+				curr.setRank(0);
+				demotions++;
+				count++;
+			}
+			else if (diffLeft != 3 && diffRight != 3) { //legal rank-diff for WAVL tree node.
+				balanced = true;
+			}
+			else {
+				boolean leftIsShort = (diffLeft == 3);
+				WAVLNode sibling = leftIsShort ? curr.getActualRight() : curr.getActualLeft();
+				int diffSibling = leftIsShort ? diffRight : diffLeft;
 				
-				if (childRight.getRankDiffRight() == 1) { // right node is (1/2,1), rotate left once.
-					leftRotate(childRight);
-					childRight.setRank(childRight.getRank()+1); //MAYBE = 19/5.
-					if (node.isALeaf()) { //additional demotion is required. 
-						node.setRank(0);
-						return 4; 
-					} else {
-						return 3;
-					}
-				} else if (childRight.getRankDiffLeft () == 2 && childRight.getRankDiffRight() == 2) { //right node is (2,2), double demote.
-					childRight.setRank(childRight.getRank()-1);
-					node.setRank(node.getRank()-1);
-					node.updateSubtreeSize();
-					return 2 + DeletionRebalanceCount(node.getParent());
-				} else if (childRight.getRankDiffRight() == 2) { //right note is (1,2), double rotate. 
-					WAVLNode nodeLeft = childRight.getActualLeft();
-					doubleRotateLeft(nodeLeft);
-					nodeLeft.setRank(nodeLeft.getRank()+1);
-					return 5; 
+				if (diffSibling == 2) { //(3,2) - demote once.
+					curr.setRank(curr.getRank()-1);
+					demotions++;
+					count++;
 				}
-				
-			
-		} else { // right rank-diff is 3. 
-		
-			if (node.getRankDiffLeft() == 2) { //demote 1.
-				node.setRank(node.getRank()-1);
-				node.updateSubtreeSize();
-				return 1 + DeletionRebalanceCount(node.getParent());
-			} else if (node.getRankDiffLeft() == 1) {
-				WAVLNode childLeft = node.getActualLeft();
-				
-				if (childLeft.getRankDiffRight() == 2 && childLeft.getRankDiffLeft() ==2) { //double demotion.
-					childLeft.setRank(childLeft.getRank()-1);
-					node.setRank(node.getRank()-1);
-					node.updateSubtreeSize();
-					return 2 + DeletionRebalanceCount(node.getParent());
-			} else if (childLeft.getRankDiffLeft() == 1) { //rotate right once.
-				rightRotate(childLeft);
-				childLeft.setRank(childLeft.getRank()+1);
-				if (node.isALeaf()) {
-					node.setRank(0);
-					return 4;
-				} else {
-					return 3;
+				else if (sibling.getRankDiffLeft() == 2 && sibling.getRankDiffRight() == 2) { //sibling is (2,2), double demote.
+					sibling.setRank(sibling.getRank()-1);
+					curr.setRank(curr.getRank()-1);
+					demotions += 2;
+					count += 2;
+				}
+				else {
+					WAVLNode outer = leftIsShort ? sibling.getActualRight() : sibling.getActualLeft();
+					if (sibling.getRank() - outer.getRank() == 1) { //rotate the sibling up once.
+						singleRotate(sibling); //demotes curr.
+						sibling.setRank(sibling.getRank()+1);
+						singleRotations++;
+						count += 3;
+						if (curr.isALeaf()) { //additional demotion is required. 
+							curr.setRank(0);
+							demotions++;
+							count++;
+						}
+						curr = sibling;
+					}
+					else { //the inner child of the sibling is the higher one, double rotate.
+						WAVLNode inner = leftIsShort ? sibling.getActualLeft() : sibling.getActualRight();
+						singleRotate(inner); //demotes sibling.
+						singleRotate(inner); //demotes curr.
+						inner.setRank(inner.getRank()+2);
+						curr.setRank(curr.getRank()-1);
+						doubleRotations++;
+						count += 5;
+						curr = inner;
+					}
+					balanced = true;
 				}
-			} else if (childLeft.getRankDiffLeft() == 2) { //double rotation.
-				WAVLNode rightOfLeft = childLeft.getActualRight();
-				doubleRotateRight(rightOfLeft);
-				rightOfLeft.setRank(rightOfLeft.getRank()+1);
-				return 2;
 			}
-				
 		}
-	}			
-	}
-	return 0; 
+		return count;
 	}
 	
 	/*updates subtree size all the way up*/
 	public void updateTreeSubtreeSize (WAVLNode node) {
+		if (!orderStatistics) {
+			return;
+		}
 		WAVLNode curr = node; 
 		while (curr != null) {
 			curr.updateSubtreeSize();
@@ -584,15 +842,353 @@ public class WAVLTree {
 		}
 	}
 	
-	public Integer leafDeletionRebalanceCount(WAVLNode node) {
-		if(node.getRankDiffRight() == 2 && node.getRankDiffLeft() == 2) {
-			node.setRank(node.getRank()-1);
-			return 1 + DeletionRebalanceCount(node.getParent());
-		} else if (node.getRankDiffRight() == 1 && node.getRankDiffLeft() == 1) {
+	/**
+	 * public int deleteRange(int lo, int hi)
+	 *
+	 * deletes all items with keys between lo and hi (inclusive) from the tree.
+	 * the tree is split around the range and the outer parts are joined again,
+	 * so with order statistics the cost is O(log n) however many items are removed;
+	 * the detached nodes are left to the garbage collector as whole subtrees.
+	 * without order statistics the detached nodes are counted one by one to keep size()
+	 * right, so the cost is O(log n + number of items deleted).
+	 * returns the number of items deleted.
+	 */
+	public int deleteRange(int lo, int hi) {
+		if (trace != null) {
+			recordTrace(TRACE_DELETE_RANGE, lo, hi);
+		}
+		if (empty() || lo > hi) {
 			return 0;
 		}
-		return null;
+		WAVLNode tree = root;
+		root = null; //rotations inside split and join must not move the root of the tree.
+		
+		WAVLNode[] below = split(tree, lo); //keys < lo, lo, keys > lo.
+		WAVLNode[] above = split(below[2], hi); //keys in (lo, hi), hi, keys > hi.
+		tree = join(below[0], above[2]);
+		int deleted = (below[1] != null ? 1 : 0) + countNodes(above[0]) + (above[1] != null ? 1 : 0);
+		itemCount -= deleted;
+		
+		if (tree.isInnerNode()) {
+			root = tree;
+			min = root;
+			while (min.getLeft() != null) {
+				min = min.getActualLeft();
+			}
+			max = root;
+			while (max.getRight() != null) {
+				max = max.getActualRight();
+			}
+		}
+		else {
+			clear();
+		}
+		
+		if (deleted > 0) {
+			if (searchCache != null) { //the removed nodes are not visited, so the whole cache is dropped.
+				Arrays.fill(searchCache, null);
+			}
+			recordChange(Change.DELETE_RANGE, lo, hi, null);
+		}
+		return deleted;
+	}
+	
+	/*deletes all items with keys smaller than k. returns the number of items deleted.*/
+	public int truncateBelow(int k) {
+		if (k == Integer.MIN_VALUE) {
+			return 0;
+		}
+		return deleteRange(Integer.MIN_VALUE, k - 1);
+	}
+	
+	/*deletes all items with keys larger than k. returns the number of items deleted.*/
+	public int truncateAbove(int k) {
+		if (k == Integer.MAX_VALUE) {
+			return 0;
+		}
+		return deleteRange(k + 1, Integer.MAX_VALUE);
+	}
+	
+	/*returns the number of items in the detached subtree of node, in O(1) if subtree sizes are maintained.*/
+	private int countNodes(WAVLNode node) {
+		if (orderStatistics || !node.isInnerNode()) {
+			return node.getSubtreeSize();
+		}
+		return countNodes(node.getActualLeft()) + 1 + countNodes(node.getActualRight());
+	}
+	
+	/*splits the detached subtree of node by k into {keys < k, the node with key k or null, keys > k}.
+	 *both parts are valid detached WAVL trees (possibly the external leaf).*/
+	private WAVLNode[] split(WAVLNode node, int k) {
+		if (!node.isInnerNode()) {
+			return new WAVLNode[] {externalLeaf, null, externalLeaf};
+		}
+		WAVLNode left = detach(node.getActualLeft());
+		WAVLNode right = detach(node.getActualRight());
+		if (k == node.getKey()) {
+			node.setLeft(externalLeaf);
+			node.setRight(externalLeaf);
+			return new WAVLNode[] {left, node, right};
+		}
+		else if (k < node.getKey()) {
+			WAVLNode[] parts = split(left, k);
+			parts[2] = join(parts[2], node, right);
+			return parts;
+		}
+		else {
+			WAVLNode[] parts = split(right, k);
+			parts[0] = join(left, node, parts[0]);
+			return parts;
+		}
+	}
+	
+	/*joins two detached trees where all keys of left are smaller than all keys of right. returns the new root.*/
+	private WAVLNode join(WAVLNode left, WAVLNode right) {
+		if (!left.isInnerNode()) {
+			return right;
+		}
+		if (!right.isInnerNode()) {
+			return left;
+		}
+		WAVLNode[] parts = splitLast(left);
+		return join(parts[0], parts[1], right);
+	}
+	
+	/*removes the node with the largest key from a detached non-empty tree. returns {the remaining tree, that node}.*/
+	private WAVLNode[] splitLast(WAVLNode node) {
+		WAVLNode left = detach(node.getActualLeft());
+		if (!node.getActualRight().isInnerNode()) {
+			node.setLeft(externalLeaf);
+			return new WAVLNode[] {left, node};
+		}
+		WAVLNode[] parts = splitLast(detach(node.getActualRight()));
+		parts[0] = join(left, node, parts[0]);
+		return parts;
+	}
+	
+	/*joins the detached trees left and right with the node middle, whose key lies between them.
+	 *middle is hung on the spine of the higher tree where the ranks meet, then rebalanced like an insertion.
+	 *returns the new root.*/
+	private WAVLNode join(WAVLNode left, WAVLNode middle, WAVLNode right) {
+		int leftRank = left.getRank();
+		int rightRank = right.getRank();
+		
+		if (Math.abs(leftRank - rightRank) <= 1) { //middle becomes the root.
+			link(middle, left, right, Math.max(leftRank, rightRank) + 1);
+			middle.setParent(null);
+			return middle;
+		}
+		
+		WAVLNode parent = null; //the external leaf has no parent pointer, so it is tracked while walking.
+		if (leftRank > rightRank) { //walk down the right spine of left.
+			WAVLNode spine = left;
+			while (spine.getRank() > rightRank + 1) {
+				parent = spine;
+				spine = spine.getActualRight();
+			}
+			link(middle, spine, right, Math.max(spine.getRank(), rightRank) + 1);
+			parent.setRight(middle);
+		}
+		else { //walk down the left spine of right.
+			WAVLNode spine = right;
+			while (spine.getRank() > leftRank + 1) {
+				parent = spine;
+				spine = spine.getActualLeft();
+			}
+			link(middle, left, spine, Math.max(spine.getRank(), leftRank) + 1);
+			parent.setLeft(middle);
+		}
+		middle.setParent(parent);
+		updateTreeSubtreeSize(parent);
+		insertBalance(middle); //middle may now have a 0 rank-diff with its parent.
+		
+		WAVLNode top = middle;
+		while (top.getParent() != null) {
+			top = top.getParent();
+		}
+		return top;
+	}
+	
+	/*makes left and right the children of node with the given rank.*/
+	private void link(WAVLNode node, WAVLNode left, WAVLNode right, int rank) {
+		node.setLeft(left);
+		node.setRight(right);
+		if (left.isInnerNode()) {
+			left.setParent(node);
+		}
+		if (right.isInnerNode()) {
+			right.setParent(node);
+		}
+		node.setRank(rank);
+		node.updateSubtreeSize();
+	}
+	
+	/*cuts node from its parent, keeping the parent's child pointer. returns node.*/
+	private WAVLNode detach(WAVLNode node) {
+		if (node.isInnerNode()) {
+			node.setParent(null);
+		}
+		return node;
+	}
+	
+	/*returns the number of promotions done by insertion rebalancing.*/
+	public long getPromotionCount() {
+		return promotions;
+	}
+	
+	/*returns the number of demotions done by deletion rebalancing.*/
+	public long getDemotionCount() {
+		return demotions;
+	}
+	
+	/*returns the number of single rotations done by insertion and deletion rebalancing.*/
+	public long getSingleRotationCount() {
+		return singleRotations;
+	}
+	
+	/*returns the number of double rotations done by insertion and deletion rebalancing.*/
+	public long getDoubleRotationCount() {
+		return doubleRotations;
+	}
+	
+	/*resets all rebalancing counters to 0.*/
+	public void resetRebalanceCounts() {
+		promotions = 0;
+		demotions = 0;
+		singleRotations = 0;
+		doubleRotations = 0;
+	}
+	
+	/**
+	 * public long getVersion()
+	 *
+	 * Returns the version of the tree: the number of successful inserts and deletes,
+	 * or the version of the last change or snapshot applied to it.
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * public void enableChangeFeed(int capacity)
+	 *
+	 * Starts keeping the last capacity changes in a ring buffer, so followers can
+	 * catch up with changesSince instead of copying the whole tree.
+	 * throws IllegalArgumentException if capacity is smaller than 1.
+	 */
+	public void enableChangeFeed(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("change feed capacity must be at least 1, got " + capacity);
+		}
+		changeOps = new byte[capacity];
+		changeKeys = new int[capacity];
+		changeHiKeys = new int[capacity];
+		changeValues = new String[capacity];
+		changeFeedStart = version;
+	}
+	
+	/*bumps the version and stores the change in the ring buffer, overwriting the oldest one.*/
+	private void recordChange(byte op, int k, String value) {
+		recordChange(op, k, k, value);
+	}
+	
+	private void recordChange(byte op, int k, int hiKey, String value) {
+		version++;
+		if (changeOps != null) {
+			int index = (int) ((version - 1) % changeOps.length);
+			changeOps[index] = op;
+			changeKeys[index] = k;
+			changeHiKeys[index] = hiKey;
+			changeValues[index] = value;
+		}
+	}
+	
+	/**
+	 * public Change[] changesSince(long fromVersion, int maxChanges)
+	 *
+	 * Returns up to maxChanges changes with versions after fromVersion, oldest first,
+	 * so a follower pulls at its own pace. returns an empty array if the follower is up to date,
+	 * or null if some of the changes are no longer in the ring buffer (or the feed is disabled),
+	 * in which case the follower must start over from snapshot().
+	 * throws IllegalArgumentException if maxChanges is negative.
+	 */
+	public Change[] changesSince(long fromVersion, int maxChanges) {
+		if (maxChanges < 0) {
+			throw new IllegalArgumentException("maxChanges must not be negative, got " + maxChanges);
+		}
+		if (changeOps == null || fromVersion > version) {
+			return null;
+		}
+		long oldest = Math.max(changeFeedStart, version - changeOps.length);
+		if (fromVersion < oldest) { //the follower fell off the end of the ring.
+			return null;
+		}
+		int count = (int) Math.min(version - fromVersion, maxChanges);
+		Change[] changes = new Change[count];
+		for (int j = 0; j < count; j++) {
+			long v = fromVersion + j + 1;
+			int index = (int) ((v - 1) % changeOps.length);
+			changes[j] = new Change(v, changeOps[index], changeKeys[index], changeHiKeys[index], changeValues[index]);
+		}
+		return changes;
+	}
+	
+	/**
+	 * public Snapshot snapshot()
+	 *
+	 * Returns all keys and info of the tree with the version they belong to.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(version, keysToArray(), infoToArray());
+	}
+	
+	/**
+	 * public void applySnapshot(Snapshot snapshot)
+	 *
+	 * Replaces the content of the tree with snapshot and takes its version.
+	 * the change feed restarts from that version.
+	 */
+	public void applySnapshot(Snapshot snapshot) {
+		clear();
+		for (int j = 0; j < snapshot.keys.length; j++) {
+			insert(snapshot.keys[j], snapshot.values[j]);
+		}
+		version = snapshot.version;
+		changeFeedStart = version;
+	}
+	
+	/**
+	 * public void applyChanges(Change[] changes)
+	 *
+	 * Applies changes returned by changesSince of another tree, in order.
+	 * changes the tree already has (version not above getVersion()) are skipped,
+	 * and the tree takes the version of every change it applies.
+	 */
+	public void applyChanges(Change[] changes) {
+		for (Change change : changes) {
+			if (change.version <= version) {
+				continue;
+			}
+			if (change.version != version + 1) { //a gap means the feed of this tree can't follow on.
+				changeFeedStart = change.version - 1;
+			}
+			version = change.version - 1; //recordChange brings it to change.version.
+			if (change.op == Change.INSERT) {
+				insert(change.key, change.value);
+			}
+			else if (change.op == Change.DELETE_RANGE) {
+				deleteRange(change.key, change.hiKey);
+			}
+			else {
+				delete(change.key);
+			}
+			if (version != change.version) { //the change had no effect here, so it is not in the ring.
+				version = change.version;
+				changeFeedStart = version;
+			}
+		}
 	}
+	
    /**
     * public String min()
     *
@@ -662,7 +1258,7 @@ public class WAVLTree {
     	   String[] emptyTree = new String[] {};
     	   return emptyTree;
        }
-       String[] arr = new String[root.getSubtreeSize()];   
+       String[] arr = new String[size()];   
        infoToArrayUpdate(root, arr, 0);
        return arr; 
    }
@@ -685,7 +1281,7 @@ public class WAVLTree {
     */
    public int size()
    {
-           return root.getSubtreeSize(); 
+           return itemCount; 
    }
    
      /**
@@ -712,45 +1308,146 @@ public class WAVLTree {
     */   
    public String select(int i)  
    {
-	   if (empty()) {
+	   if (trace != null) {
+		   recordTrace(TRACE_SELECT, i, 0);
+	   }
+	   requireOrderStatistics();
+	   if (empty() || i < 1 || i > size()) {
 		   return null;
 	   }
-       WAVLNode curr = this.min;
-       
-       while (curr.getSubtreeSize()<i) {
-    	   if (curr == root) {
-    		   break;
-    	   }
-    	   curr = curr.getParent();
-       }
-       return select(curr, i).getValue();
+       return select(root, i).getValue();
    }
 
-   /*recursively returns the value of the i'th smallest key*/
+   /*iteratively returns the node with the i'th smallest key in the subtree of node, or null if there is none.
+    *throws UnsupportedOperationException if the tree keeps no order statistics.*/
    public WAVLNode select(WAVLNode node, int i) {  
-	   int r = node.getActualLeft().getSubtreeSize()+1;
-
-	   if (i == r) {
-		   return node;
+	   requireOrderStatistics();
+	   WAVLNode curr = node;
+	   while (curr.isInnerNode()) {
+		   int r = curr.getActualLeft().getSubtreeSize()+1;
+		   if (i == r) {
+			   return curr;
+		   }
+		   else if (i < r) {
+			   curr = curr.getActualLeft();
+		   }
+		   else { //i>r
+			   i -= r;
+			   curr = curr.getActualRight();
+		   }
+	   }
+	   return null;
+   }
+   
+   /**
+    * public String[] selectAll(int[] sortedRanks)
+    *
+    * Returns the values of the keys with the given ranks, in the same order as sortedRanks.
+    * sortedRanks must be sorted in ascending order. ranks outside 1..size() give null.
+    * All ranks are answered in one shared descent from the root, so each node on the
+    * union of the search paths is visited once.
+    *
+    */
+   public String[] selectAll(int[] sortedRanks)
+   {
+	   requireOrderStatistics();
+	   String[] result = new String[sortedRanks.length];
+	   if (!empty()) {
+		   selectAll(root, sortedRanks, 0, sortedRanks.length, 0, result);
+	   }
+	   return result;
+   }
+   
+   /*returns true if the tree maintains subtree sizes, so select and selectAll are available.*/
+   public boolean hasOrderStatistics() {
+	   return orderStatistics;
+   }
+   
+   /*select needs subtree sizes, which trees built without order statistics don't keep.*/
+   private void requireOrderStatistics() {
+	   if (!orderStatistics) {
+		   throw new UnsupportedOperationException("select is unavailable in a tree without order statistics");
 	   }
-	   else if (i < r) {
-		   return select(node.getActualLeft(), i);
-	   		}
-	   else { //i>r
-		   return select(node.getActualRight(), i-r);
+   }
+   
+   /*answers sortedRanks[from..to) in the subtree of node, whose keys have ranks offset+1..offset+size*/
+   private void selectAll(WAVLNode node, int[] sortedRanks, int from, int to, int offset, String[] result) {
+	   while (from < to && node.isInnerNode()) {
+		   int r = offset + node.getActualLeft().getSubtreeSize() + 1;
+		   int mid = from;
+		   while (mid < to && sortedRanks[mid] < r) {
+			   mid++;
+		   }
+		   int end = mid;
+		   while (end < to && sortedRanks[end] == r) {
+			   result[end++] = node.getValue();
 		   }
+		   if (from < mid) {
+			   selectAll(node.getActualLeft(), sortedRanks, from, mid, offset, result);
+		   }
+		   //continues to the right subtree without recursion.
+		   from = end;
+		   offset = r;
+		   node = node.getActualRight();
+	   }
+   }
+   
+   /**
+    * public static class Change
+    *
+    * A single successful insert, delete or range delete, as returned by changesSince.
+    */
+   public static class Change {
+	   
+	   public static final byte INSERT = 1;
+	   public static final byte DELETE = 2;
+	   public static final byte DELETE_RANGE = 3;
+	   
+	   public final long version;
+	   public final byte op;
+	   public final int key;
+	   /*the upper bound of range deletes, equal to key otherwise.*/
+	   public final int hiKey;
+	   /*the inserted info, null for deletes.*/
+	   public final String value;
+	   
+	   public Change(long version, byte op, int key, int hiKey, String value) {
+		   this.version = version;
+		   this.op = op;
+		   this.key = key;
+		   this.hiKey = hiKey;
+		   this.value = value;
+	   }
+   }
+   
+   /**
+    * public static class Snapshot
+    *
+    * All keys and info of a tree, sorted by key, at a given version.
+    */
+   public static class Snapshot {
+	   
+	   public final long version;
+	   public final int[] keys;
+	   public final String[] values;
+	   
+	   public Snapshot(long version, int[] keys, String[] values) {
+		   this.version = version;
+		   this.keys = keys;
+		   this.values = values;
 	   }
+   }
    
    /**
    * public class WAVLNode
    */
   public class WAVLNode{
 	  
-		private Integer key;
+		private int key;
 		private String value; 
 		private WAVLNode left;
 		private WAVLNode right;
-		private Integer rank;
+		private int rank; //-1 only for the external leaf.
 		private WAVLNode parent; 
 		private int subtreeSize;
 		
@@ -758,11 +1455,11 @@ public class WAVLTree {
 		public WAVLNode() {
 			this.rank = -1;
 			this.subtreeSize = 0;
-			this.key = null;
+			this.key = -1;
 		}
 		
 		/*genral constuctor of wavlnode*/
-		public WAVLNode (Integer key, String value) {
+		public WAVLNode (int key, String value) {
 			this.right = externalLeaf;
 			this.left = externalLeaf;
 			this.value = value; 
@@ -771,26 +1468,18 @@ public class WAVLTree {
 			this.rank = 0; 
 		}
 				
+		/*returns the key of the node, -1 for the external leaf.*/
 		public int getKey() {
-				if (isInnerNode()) {
-	                return this.key;
-				}
-				else {
-					return -1;
-				}
+	        return this.key;
         }
 		
 		public void setKey(int key) {
 			this.key = key;
 		}
 		
+        /*returns the info of the node, null for the external leaf.*/
         public String getValue(){
-        	if(isInnerNode()) {
-        		return this.value;
-        	}
-        	else {
-        		return null;
-        	}
+        	return this.value;
         }
         
         public void setValue(String value) {
@@ -823,7 +1512,7 @@ public class WAVLTree {
         
         public boolean isInnerNode()
         {
-                return this.key != null;
+                return this.rank >= 0;
         }
                 
         /*sets the subtree size.*/
@@ -832,9 +1521,14 @@ public class WAVLTree {
         }
         /*updates the subtree size accodring to both children of the node.*/
         public void updateSubtreeSize() {
+        	if (!orderStatistics) {
+        		return;
+        	}
         	this.setSubtreeSize(getActualRight().getSubtreeSize() + getActualLeft().getSubtreeSize() + 1);
         }
         
+        /*returns the number of items in the subtree of the node. only maintained in trees with
+         *order statistics, otherwise the value is stale (see WAVLTree.hasOrderStatistics()).*/
         public int getSubtreeSize()
         {
                 return subtreeSize;
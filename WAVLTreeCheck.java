@@ -0,0 +1,217 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *
+ * WAVLTreeCheck
+ *
+ * Randomized check of WAVLTree against java.util.TreeMap. After every operation
+ * it verifies the WAVL rank rules, parent pointers, key order, subtree sizes
+ * (when maintained), min/max and size, and compares the results of insert, delete,
+ * deleteRange, search, select, selectAll, floor, ceiling, lower and higher.
+ * Every COMPRESS_INTERVAL operations it also compresses the tree and compares
+ * search, select, scan and keysToArray of the CompressedWAVLTree.
+ * Keys include Integer.MIN_VALUE and Integer.MAX_VALUE and some values are null.
+ * Both order statistics modes are checked.
+ *
+ * usage: java WAVLTreeCheck [rounds] [seed]
+ *
+ */
+
+public class WAVLTreeCheck {
+
+	private static final int OPERATIONS = 2000;
+	private static final int COMPRESS_INTERVAL = 50;
+	private static final int[] EXTREME_KEYS = {Integer.MIN_VALUE, Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+
+	public static void main(String[] args) {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+		for (int round = 0; round < rounds; round++) {
+			for (boolean orderStatistics : new boolean[] {true, false}) {
+				long roundSeed = seed * 1_000_003L + round;
+				try {
+					checkRound(new Random(roundSeed), orderStatistics);
+				} catch (IllegalStateException e) {
+					System.err.println("failed at seed " + seed + ", round " + round + ", order statistics " + orderStatistics + ": " + e.getMessage());
+					System.exit(1);
+				}
+			}
+		}
+		System.out.println("OK: " + rounds + " rounds of " + OPERATIONS + " operations in both modes");
+	}
+
+	/*runs random operations on a tree and a TreeMap and compares them after each one.*/
+	private static void checkRound(Random random, boolean orderStatistics) {
+		WAVLTree tree = new WAVLTree(random.nextInt(3) * 8, orderStatistics);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		int range = 5 + random.nextInt(500);
+
+		for (int op = 0; op < OPERATIONS; op++) {
+			int k = randomKey(random, range);
+			int choice = random.nextInt(100);
+			if (choice < 50) {
+				String value = random.nextInt(10) == 0 ? null : "v" + k;
+				int result = tree.insert(k, value);
+				check((result == -1) == expected.containsKey(k), "insert(" + k + ") returned " + result);
+				if (result != -1) {
+					expected.put(k, value);
+				}
+			}
+			else if (choice < 95) {
+				int result = tree.delete(k);
+				check((result == -1) == !expected.containsKey(k), "delete(" + k + ") returned " + result);
+				expected.remove(k);
+			}
+			else {
+				k = random.nextInt(range + 20) - 10;
+				int hi = k + random.nextInt(range / 4 + 1);
+				int before = expected.size();
+				int deleted = tree.deleteRange(k, hi);
+				expected.subMap(k, true, hi, true).clear();
+				check(deleted == before - expected.size(), "deleteRange(" + k + ", " + hi + ") returned " + deleted);
+			}
+			verify(tree, expected, orderStatistics);
+			checkQueries(tree, expected, randomKey(random, range), orderStatistics, random);
+			if (op % COMPRESS_INTERVAL == 0) {
+				checkCompressed(new CompressedWAVLTree(tree), expected, random, range);
+			}
+		}
+	}
+
+	/*returns a key in [-10, range+10), or now and then one at the ends of the int range.*/
+	private static int randomKey(Random random, int range) {
+		if (random.nextInt(50) == 0) {
+			return EXTREME_KEYS[random.nextInt(EXTREME_KEYS.length)];
+		}
+		return random.nextInt(range + 20) - 10;
+	}
+
+	/*checks the structure of the whole tree.*/
+	private static void verify(WAVLTree tree, TreeMap<Integer, String> expected, boolean orderStatistics) {
+		check(tree.size() == expected.size(), "size " + tree.size() + " instead of " + expected.size());
+		if (expected.isEmpty()) {
+			check(tree.empty(), "tree not empty");
+			return;
+		}
+		check(!tree.empty(), "tree empty");
+		check(tree.getRoot().getParent() == null, "root has a parent");
+		int size = verify(tree.getRoot(), null, Long.MIN_VALUE, Long.MAX_VALUE, orderStatistics);
+		check(size == expected.size(), "tree holds " + size + " nodes instead of " + expected.size());
+		check(tree.min.getKey() == expected.firstKey(), "min " + tree.min.getKey());
+		check(tree.max.getKey() == expected.lastKey(), "max " + tree.max.getKey());
+
+		int[] keys = tree.keysToArray();
+		String[] infos = tree.infoToArray();
+		int j = 0;
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			check(keys[j] == entry.getKey() && Objects.equals(infos[j], entry.getValue()), "keysToArray/infoToArray at " + j);
+			j++;
+		}
+	}
+
+	/*checks the subtree of node and returns its number of nodes.*/
+	private static int verify(WAVLTree.WAVLNode node, WAVLTree.WAVLNode parent, long lo, long hi, boolean orderStatistics) {
+		if (!node.isInnerNode()) {
+			check(node.getRank() == -1, "external leaf with rank " + node.getRank());
+			return 0;
+		}
+		int key = node.getKey();
+		check(node.getParent() == parent, "wrong parent pointer at " + key);
+		check(lo < key && key < hi, "key " + key + " out of order");
+		int diffLeft = node.getRankDiffLeft();
+		int diffRight = node.getRankDiffRight();
+		check(diffLeft >= 1 && diffLeft <= 2 && diffRight >= 1 && diffRight <= 2, "rank-diffs (" + diffLeft + "," + diffRight + ") at " + key);
+		check(!node.isALeaf() || (diffLeft == 1 && diffRight == 1), "(2,2) leaf at " + key);
+
+		int size = verify(node.getActualLeft(), node, lo, key, orderStatistics)
+				+ verify(node.getActualRight(), node, key, hi, orderStatistics) + 1;
+		check(!orderStatistics || node.getSubtreeSize() == size, "subtree size " + node.getSubtreeSize() + " instead of " + size + " at " + key);
+		return size;
+	}
+
+	/*compares the read-only queries around k.*/
+	private static void checkQueries(WAVLTree tree, TreeMap<Integer, String> expected, int k, boolean orderStatistics, Random random) {
+		check(Objects.equals(tree.search(k), expected.get(k)), "search(" + k + ")");
+		checkNode(tree.floor(k), expected.floorKey(k), "floor(" + k + ")");
+		checkNode(tree.ceiling(k), expected.ceilingKey(k), "ceiling(" + k + ")");
+		checkNode(tree.lower(k), expected.lowerKey(k), "lower(" + k + ")");
+		checkNode(tree.higher(k), expected.higherKey(k), "higher(" + k + ")");
+
+		if (orderStatistics) {
+			List<String> values = new ArrayList<>(expected.values());
+			int[] ranks = new int[1 + random.nextInt(4)];
+			for (int j = 0; j < ranks.length; j++) {
+				ranks[j] = random.nextInt(values.size() + 2);
+			}
+			Arrays.sort(ranks);
+			String[] selected = tree.selectAll(ranks);
+			for (int j = 0; j < ranks.length; j++) {
+				String value = (ranks[j] >= 1 && ranks[j] <= values.size()) ? values.get(ranks[j] - 1) : null;
+				check(Objects.equals(tree.select(ranks[j]), value), "select(" + ranks[j] + ")");
+				check(Objects.equals(selected[j], value), "selectAll at rank " + ranks[j]);
+			}
+		}
+	}
+
+	/*compares the compressed image of the tree with expected.*/
+	private static void checkCompressed(CompressedWAVLTree compressed, TreeMap<Integer, String> expected, Random random, int range) {
+		check(compressed.size() == expected.size(), "compressed size " + compressed.size() + " instead of " + expected.size());
+		check(compressed.empty() == expected.isEmpty(), "compressed empty() is " + compressed.empty());
+
+		int[] keys = compressed.keysToArray();
+		List<Integer> expectedKeys = new ArrayList<>(expected.keySet());
+		List<String> values = new ArrayList<>(expected.values());
+		check(keys.length == expectedKeys.size(), "compressed keysToArray has " + keys.length + " keys");
+		for (int j = 0; j < keys.length; j++) {
+			check(keys[j] == expectedKeys.get(j), "compressed keysToArray at " + j);
+		}
+
+		for (int k : EXTREME_KEYS) {
+			check(Objects.equals(compressed.search(k), expected.get(k)), "compressed search(" + k + ")");
+		}
+		for (int j = 0; j < 20; j++) {
+			int k = randomKey(random, range);
+			check(Objects.equals(compressed.search(k), expected.get(k)), "compressed search(" + k + ")");
+		}
+		int[] ranks = {0, 1, values.size(), values.size() + 1, 1 + random.nextInt(values.size() + 1)};
+		for (int i : ranks) {
+			String value = (i >= 1 && i <= values.size()) ? values.get(i - 1) : null;
+			check(Objects.equals(compressed.select(i), value), "compressed select(" + i + ")");
+		}
+
+		checkScan(compressed, expected, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		int lo = randomKey(random, range);
+		checkScan(compressed, expected, lo, Math.max(lo, randomKey(random, range)));
+		checkScan(compressed, expected, lo, lo - 1);
+	}
+
+	/*compares compressed.scan(lo, hi) with the same range of expected.*/
+	private static void checkScan(CompressedWAVLTree compressed, TreeMap<Integer, String> expected, int lo, int hi) {
+		List<Map.Entry<Integer, String>> visited = new ArrayList<>();
+		int count = compressed.scan(lo, hi, (key, value) -> visited.add(new AbstractMap.SimpleEntry<>(key, value)));
+		List<Map.Entry<Integer, String>> range = new ArrayList<>(lo > hi ? List.of() : expected.subMap(lo, true, hi, true).entrySet());
+		check(count == visited.size(), "compressed scan(" + lo + ", " + hi + ") returned " + count + " but visited " + visited.size());
+		check(visited.size() == range.size(), "compressed scan(" + lo + ", " + hi + ") visited " + visited.size() + " items instead of " + range.size());
+		for (int j = 0; j < range.size(); j++) {
+			check(visited.get(j).equals(range.get(j)), "compressed scan(" + lo + ", " + hi + ") visited " + visited.get(j) + " instead of " + range.get(j));
+		}
+	}
+
+	private static void checkNode(WAVLTree.WAVLNode node, Integer key, String query) {
+		check(node == null ? key == null : (key != null && node.getKey() == key), query + " returned " + (node == null ? null : node.getKey()));
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}